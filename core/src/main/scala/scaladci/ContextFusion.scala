@@ -0,0 +1,206 @@
+package scaladci
+import scala.collection.mutable
+import scala.reflect.macros.whitebox.{Context => MacroContext}
+import scaladci.util.MacroHelper
+
+/*
+  Fusion of nested Context calls (compiled with `-Xmacro-settings:scaladci.fuseContexts`)
+
+  A role method calling another Context, like `Inner(roleA).trigger`, instantiates the inner Context on
+  every call. If `Inner` was expanded before in an enclosing scope and only consists of constructor params,
+  roles and methods, its (already transformed) methods are lifted into the calling Context with the
+  constructor params as first parameter list:
+
+    private def Inner_trigger(roleB: Data) = Inner_roleB_bar(roleB)
+    private def Inner_roleB_bar(roleB: Data) = roleB.i
+
+  and the call becomes `Inner_trigger(roleA)`. Role Players are passed on as they are, so object identity
+  is the same as with an inner Context instance. Contexts that can't be fused are instantiated as usual.
+
+  The lifted methods have to mean the same in the calling Context, so a Context isn't fused when its
+  methods use names that the calling Context defines too (or that are members of the Context instance).
+  `Inner(roleA)` is only fused for case classes without a companion object of their own, since it calls
+  the companion's `apply` otherwise.
+
+  Fusible Contexts are attached to the tree of the block or class body defining them, so that they are
+  only seen from within that scope and are dropped with the trees of the compilation run.
+*/
+trait ContextFusion[C <: MacroContext] extends MacroHelper[C] {
+  import c0.universe._
+  import Flag._
+  val x = debug("ContextFusion", 1)
+
+  val enabled = c0.settings.contains("scaladci.fuseContexts")
+
+  // Blocks and class bodies enclosing the expanded Context, innermost first
+  private lazy val scopes: List[Tree] = {
+    val pos = c0.enclosingPosition
+    def annotated(tree: Tree) = tree match {
+      case d: MemberDef => d.mods.annotations.exists(a => a.pos != NoPosition && a.pos.point == pos.point)
+      case _            => false
+    }
+    def path(tree: Tree, enclosing: List[Tree]): Option[List[Tree]] =
+      if (annotated(tree)) Some(enclosing)
+      else tree.children.iterator.map(path(_, tree :: enclosing)).collectFirst { case Some(found) => found }
+    if (pos == NoPosition) Nil
+    else path(ContextFusion.UnitBody.of(c0), Nil).getOrElse(Nil).filter {
+      case _: Block | _: Template => true
+      case _                      => false
+    }
+  }
+
+  private def statsOf(scope: Tree) = scope match {
+    case Block(stats, expr)   => expr :: stats
+    case Template(_, _, body) => body
+    case _                    => Nil
+  }
+
+  case class Fusible(ctxName: String, params: List[ValDef], methods: List[DefDef], viaApply: Boolean) {
+    val publicMethods = methods.filterNot(_.mods.hasFlag(PRIVATE)).map(_.name.toString)
+    val methodNames   = methods.map(_.name.toString)
+    def lifted(method: String) = TermName(ctxName + "_" + method)
+
+    // Names the methods take from outside the Context
+    lazy val freeNames = methods.flatMap(freeNamesOf(_, params.map(_.name.toString).toSet ++ methodNames)).toSet
+
+    // Role player arguments are passed on by the same names in all lifted methods.
+    // Names bound in between (params, local vals and defs, pattern variables) aren't method calls.
+    case class liftedCalls(shadowed: Set[String]) extends Transformer {
+      def within(names: Set[String], tree: Tree) = liftedCalls(shadowed ++ names).transformChildren(tree)
+      def transformChildren(tree: Tree) = super.transform(tree)
+
+      override def transform(tree: Tree): Tree = tree match {
+        case Ident(TermName(method)) if methodNames.contains(method) && !shadowed(method) =>
+          Apply(Ident(lifted(method)), params.map(p => Ident(p.name)))
+        case Block(stats, _)                                                                =>
+          within(definedNames(stats), tree)
+        case Function(vparams, _)                                                           =>
+          within(vparams.map(_.name.toString).toSet, tree)
+        case DefDef(_, name, _, vparamss, _, _)                                             =>
+          within(vparamss.flatten.map(_.name.toString).toSet + name.toString, tree)
+        case CaseDef(pat, _, _)                                                             =>
+          within(pat.collect { case Bind(name, _) => name.toString }.toSet, tree)
+        case Template(_, _, body)                                                           =>
+          within(definedNames(body), tree)
+        case _                                                                              =>
+          super.transform(tree)
+      }
+    }
+
+    def liftedMethods = methods.map(_.duplicate).map {
+      case DefDef(_, name, tparams, vparamss, tpt, rhs) =>
+        val ctxParams = params.map(p => ValDef(Modifiers(PARAM), p.name, p.tpt.duplicate, EmptyTree))
+        val methodParams = vparamss.flatten.map(_.name.toString).toSet
+        DefDef(Modifiers(PRIVATE), lifted(name.toString), tparams, ctxParams :: vparamss, tpt, liftedCalls(methodParams).transform(rhs))
+    }
+  }
+
+  // Term names used in `tree` that are not defined in it
+  def freeNamesOf(tree: Tree, bound: Set[String]): Set[String] = tree match {
+    case Ident(TermName(name))                  => if (bound(name) || name == termNames.WILDCARD.toString) Set() else Set(name)
+    case Block(stats, expr)                     => (expr :: stats).flatMap(freeNamesOf(_, bound ++ definedNames(stats))).toSet
+    case ValDef(_, _, _, rhs)                   => freeNamesOf(rhs, bound)
+    case DefDef(_, name, _, vparamss, _, rhs)   => freeNamesOf(rhs, bound ++ vparamss.flatten.map(_.name.toString) + name.toString)
+    case Function(vparams, body)                => freeNamesOf(body, bound ++ vparams.map(_.name.toString))
+    case CaseDef(pat, guard, body)              =>
+      val patternBound = bound ++ pat.collect { case Bind(name, _) => name.toString }
+      List(pat, guard, body).flatMap(freeNamesOf(_, patternBound)).toSet
+    case _                                      => tree.children.flatMap(freeNamesOf(_, bound)).toSet
+  }
+
+  def definedNames(trees: List[Tree]): Set[String] = trees.collect { case d: DefTree => d.name.toString }.toSet
+
+  // Members that an unqualified name in a Context method could refer to
+  private lazy val instanceMembers =
+    (definitions.ObjectTpe.members ++ typeOf[Product].members).map(_.name.decodedName.toString).toSet + "copy"
+
+  def fusible(ctxMods: Modifiers, ctxName: Name, ctxTypeDefs: List[TypeDef], contextTree: List[Tree], hasCompanion: Boolean): Option[Fusible] = {
+    val constructors = contextTree.collect { case DefDef(_, termNames.CONSTRUCTOR, _, vparamss, _, _) => vparamss }
+    val methods = contextTree.collect { case m@DefDef(_, name, _, _, _, _) if name != termNames.CONSTRUCTOR => m }
+    val otherCode = contextTree.filter {
+      case ValDef(mods, _, _, _) if mods.hasFlag(PARAMACCESSOR) => false
+      case DefDef(_, _, _, _, _, _)                             => false
+      case _                                                    => true
+    }
+    val usesContextInstance = methods.exists(_.exists {
+      case This(_) | Super(_, _) => true
+      case _                     => false
+    })
+    // Method params can't share names with the constructor params prepended to them
+    def clashes(params: List[ValDef]) = methods.flatMap(_.vparamss.flatten.map(_.name)).exists(params.map(_.name).contains)
+    constructors match {
+      case List(List(params)) if ctxName.isTypeName && ctxTypeDefs.isEmpty && !ctxMods.hasFlag(ABSTRACT) && !ctxMods.hasFlag(TRAIT) &&
+        otherCode.isEmpty && !usesContextInstance && params.forall(p => p.rhs.isEmpty && !p.mods.hasFlag(IMPLICIT)) &&
+        !clashes(params) && methods.map(_.name).distinct.size == methods.size =>
+        val viaApply = ctxMods.hasFlag(CASE) && !hasCompanion
+        Some(Fusible(ctxName.toString, params, methods, viaApply)).filterNot(_.freeNames.exists(instanceMembers))
+      case _                                                                  => None
+    }
+  }
+
+  // The Context that `ctxName` refers to, if it is fusible. The innermost scope defining the name decides.
+  def lookup(ctxName: String): Option[Fusible] =
+    scopes.find(scope => definedNames(statsOf(scope)) contains ctxName).flatMap { scope =>
+      c0.internal.attachments(scope).get[ContextFusion.Fusibles].flatMap(_.byName.get(ctxName)).map(_.asInstanceOf[Fusible])
+    }
+
+  def register(fusible: Fusible) {
+    scopes.headOption.foreach { scope =>
+      val registered = c0.internal.attachments(scope).get[ContextFusion.Fusibles].fold(Map[String, Any]())(_.byName)
+      val copy = Fusible(fusible.ctxName, fusible.params.map(_.duplicate), fusible.methods.map(_.duplicate), fusible.viaApply)
+      c0.internal.updateAttachment(scope, ContextFusion.Fusibles(registered + (fusible.ctxName -> copy)))
+    }
+  }
+
+  // Inner(roleA).trigger     => Inner_trigger(roleA)
+  // new Inner(roleA).trigger => Inner_trigger(roleA)
+  def fuseCalls(contextTree: List[Tree]): List[Tree] = if (!enabled) contextTree else {
+    val fused = mutable.LinkedHashMap[String, Fusible]()
+    val names = definedNames(contextTree)
+
+    def isNamedArg(arg: Tree) = arg match {
+      case AssignOrNamedArg(_, _) => true
+      case _                      => false
+    }
+
+    def fusedCall(ctxName: String, method: String, args: List[Tree], viaApply: Boolean): Option[Tree] = lookup(ctxName).collect {
+      case f if (f.publicMethods contains method) && f.params.size == args.size && !args.exists(isNamedArg) &&
+        (f.viaApply || !viaApply) && !f.freeNames.exists(names) =>
+        fused(ctxName) = f
+        Apply(Ident(f.lifted(method)), args)
+    }
+
+    object callTransformer extends Transformer {
+      override def transform(tree: Tree): Tree = tree match {
+        case Select(Apply(Ident(TermName(ctxName)), args), TermName(method))                                       =>
+          fusedCall(ctxName, method, transformTrees(args), viaApply = true) getOrElse super.transform(tree)
+        case Select(Apply(Select(New(Ident(TypeName(ctxName))), termNames.CONSTRUCTOR), args), TermName(method)) =>
+          fusedCall(ctxName, method, transformTrees(args), viaApply = false) getOrElse super.transform(tree)
+        case _                                                                                                    =>
+          super.transform(tree)
+      }
+    }
+
+    val newContextTree = callTransformer.transformTrees(contextTree)
+    newContextTree ++ fused.values.flatMap(_.liftedMethods)
+  }
+}
+
+object ContextFusion {
+  // Attachment of a scope with the fusible Contexts defined in it (`Fusible`s of the compilation run's universe)
+  case class Fusibles(byName: Map[String, Any])
+
+  // Blocks and class bodies are only reachable through the deprecated `enclosingUnit`. Calling it from a
+  // deprecated class doesn't warn, and neither does its (not deprecated) companion.
+  @deprecated("Only for looking up the scopes of a Context", "0.5.6")
+  class UnitBody {
+    def of(c: MacroContext): c.universe.Tree = c.enclosingUnit.body
+  }
+  object UnitBody extends UnitBody
+
+  def inst(c: MacroContext) = new {
+    val c0: c.type = c
+  } with ContextFusion[c.type]
+
+  def apply(c: MacroContext) = inst(c)
+}
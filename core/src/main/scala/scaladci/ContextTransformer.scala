@@ -158,6 +158,23 @@ object ContextTransformer {
       }
     }
 
+    // With `-Xmacro-settings:scaladci.trackAllocations` role methods report their allocations to `allocationBudget`
+    // roleMethodBody => val start = allocationBudget.enter(); try roleMethodBody finally allocationBudget.exit("Ctx.role.method", start)
+    // Recursive calls are then no longer in tail position, so role methods aren't tail call optimized
+    // and `@tailrec` role methods don't compile with this setting.
+    def trackAllocations(roleName: String, roleMethodName: TermName, roleMethodBody: Tree): Tree = {
+      if (!c.settings.contains("scaladci.trackAllocations"))
+        roleMethodBody
+      else {
+        def allocationBudget = Select(Select(Select(Ident(termNames.ROOTPKG), TermName("scaladci")), TermName("util")), TermName("allocationBudget"))
+        val start = TermName(c.freshName("start"))
+        val roleMethod = Literal(Constant(s"$ctxName.$roleName.$roleMethodName"))
+        Block(
+          List(ValDef(Modifiers(), start, TypeTree(), Apply(Select(allocationBudget, TermName("enter")), Nil))),
+          Try(roleMethodBody, Nil, Apply(Select(allocationBudget, TermName("exit")), List(roleMethod, Ident(start)))))
+      }
+    }
+
     case class roleBodyTransformer(roleName: String) extends Transformer {
       override def transform(roleTree: Tree): Tree = roleTree match {
 
@@ -171,7 +188,7 @@ object ContextTransformer {
           //          comp(roleMethodName, newRoleMethodName)
 
           // Transform role method body
-          val newRoleMethodBody = roleMethodTransformer(roleName).transform(roleMethodBody)
+          val newRoleMethodBody = trackAllocations(roleName, roleMethodName, roleMethodTransformer(roleName).transform(roleMethodBody))
           //          comp(roleMethodBody, newRoleMethodBody)
 
           // Build role method AST
@@ -275,6 +292,14 @@ object ContextTransformer {
     // Clean up now obsolete role keywords
     contextTree = removeRoleKeywords(contextTree)
 
+    // Inner(roleA).trigger => Inner_trigger(roleA) (with `-Xmacro-settings:scaladci.fuseContexts`, if `Inner` can be fused)
+    val fusion = ContextFusion(c)
+    contextTree = fusion.fuseCalls(contextTree)
+
+    // Let later Contexts in the same scope fuse this one
+    if (fusion.enabled)
+      fusion.fusible(ctxModifiers, ctxName, ctxTypeDefs, contextTree, hasCompanion = annottees.size > 1) foreach fusion.register
+
     // Uncomment to compare original and transformed AST
     //    comp(ctx.body, contextTree)
 
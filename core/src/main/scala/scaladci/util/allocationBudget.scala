@@ -0,0 +1,162 @@
+package scaladci.util
+
+import java.lang.management.ManagementFactory
+
+/*
+  Allocation budget of a Context interaction
+
+    allocationBudget("MoneyTransfer", bytesPerCall = 0) {
+      transfer.trigger
+    }
+
+  runs the trigger `warmups` times, then measures the bytes allocated per call on the calling
+  thread over `calls` calls and throws an AssertionError if the budget is exceeded.
+
+  Role methods compiled with `-Xmacro-settings:scaladci.trackAllocations` report their own
+  allocations, so that the error can tell which role methods allocated:
+
+    MoneyTransfer allocates 24 bytes per call (budget: 0 bytes)
+      MoneyTransfer.source.withdraw           24 bytes
+*/
+
+object allocationBudget {
+
+  case class RoleMethodAllocation(roleMethod: String, bytesPerCall: Long)
+
+  // `tracked` tells if any role method reported its allocations
+  case class Report(context: String, budget: Long, bytesPerCall: Long, roleMethods: List[RoleMethodAllocation], tracked: Boolean) {
+    override def toString = {
+      val header = s"$context allocates $bytesPerCall bytes per call (budget: $budget bytes)"
+      val lines = if (roleMethods.nonEmpty)
+        roleMethods.map(m => f"  ${m.roleMethod}%-40s ${m.bytesPerCall}%6d bytes")
+      else if (bytesPerCall > budget && !tracked)
+        List("  Compile with `-Xmacro-settings:scaladci.trackAllocations` to see allocations by role method")
+      else
+        Nil
+      (header :: lines).mkString("\n")
+    }
+  }
+
+  def apply(context: String, bytesPerCall: Long, calls: Int = 100000, warmups: Int = 100000)(trigger: => Unit): Report = {
+    repeat(warmups)(trigger)
+    val measured = (1 to 3).map(_ => measure(calls)(trigger)).min
+    if (measured > bytesPerCall) {
+      val roleMethods = roleMethodAllocations(calls)(trigger)
+      throw new AssertionError(Report(context, bytesPerCall, measured, roleMethods, tracking.get.tracked).toString)
+    }
+    Report(context, bytesPerCall, measured, Nil, tracked = false)
+  }
+
+  // Bytes allocated per call on the calling thread
+  def measure(calls: Int)(trigger: => Unit): Long = {
+    val overhead = readOverhead
+    val start = allocatedBytes()
+    repeat(calls)(trigger)
+    (allocatedBytes() - start - overhead) / calls
+  }
+
+  def roleMethodAllocations(calls: Int)(trigger: => Unit): List[RoleMethodAllocation] = {
+    val tracker = tracking.get
+    tracker.reset(readOverhead)
+    tracker.active = true
+    try repeat(calls)(trigger) finally tracker.active = false
+    tracker.bytesByRoleMethod.map { case (roleMethod, bytes) => RoleMethodAllocation(roleMethod, bytes / calls) }
+      .filter(_.bytesPerCall > 0).sortBy(-_.bytesPerCall)
+  }
+
+
+  // Called at the start and end of role methods compiled with `-Xmacro-settings:scaladci.trackAllocations`
+
+  def enter(): Long = {
+    val tracker = tracking.get
+    if (tracker.active) tracker.enter() else 0L
+  }
+
+  def exit(roleMethod: String, start: Long): Unit = {
+    val tracker = tracking.get
+    if (tracker.active) tracker.exit(roleMethod, start)
+  }
+
+
+  private lazy val threadBean = ManagementFactory.getThreadMXBean match {
+    case bean: com.sun.management.ThreadMXBean if bean.isThreadAllocatedMemorySupported =>
+      bean.setThreadAllocatedMemoryEnabled(true)
+      bean
+    case _                                                                                =>
+      throw new UnsupportedOperationException("This JVM can't measure allocated bytes per thread")
+  }
+
+  private def allocatedBytes() = threadBean.getThreadAllocatedBytes(Thread.currentThread.getId)
+
+  // Some JVMs allocate when reading the allocation counter
+  private def readOverhead = (1 to 10).map { _ =>
+    val first = allocatedBytes()
+    allocatedBytes() - first
+  }.min
+
+  private def repeat(n: Int)(trigger: => Unit) {
+    var i = 0
+    while (i < n) {
+      trigger
+      i += 1
+    }
+  }
+
+  // Allocations of role methods excluding the role methods they call
+  private class Tracker {
+    val maxDepth = 1024
+    var active   = false
+    var tracked  = false
+
+    private var overhead        = 0L
+    private var depth           = 0
+    private val childBytes      = new Array[Long](maxDepth)
+    private val childCalls      = new Array[Int](maxDepth)
+    private val roleMethodBytes = new java.util.HashMap[String, Array[Long]]()
+
+    def reset(readOverhead: Long) {
+      overhead = readOverhead
+      depth = 0
+      tracked = false
+      roleMethodBytes.clear()
+    }
+
+    def enter(): Long = {
+      tracked = true
+      if (depth < maxDepth) {
+        childBytes(depth) = 0L
+        childCalls(depth) = 0
+      }
+      depth += 1
+      allocatedBytes()
+    }
+
+    def exit(roleMethod: String, start: Long) {
+      val bytes = allocatedBytes() - start
+      depth -= 1
+      if (depth < maxDepth) {
+        // Each counter read within the role method may have allocated too
+        val ownBytes = bytes - childBytes(depth) - (childCalls(depth) + 1) * overhead
+        var counter = roleMethodBytes.get(roleMethod)
+        if (counter == null) {
+          counter = new Array[Long](1)
+          roleMethodBytes.put(roleMethod, counter)
+        }
+        counter(0) += math.max(0L, ownBytes)
+      }
+      if (depth > 0 && depth <= maxDepth) {
+        childBytes(depth - 1) += bytes
+        childCalls(depth - 1) += 1
+      }
+    }
+
+    def bytesByRoleMethod: List[(String, Long)] = {
+      val roleMethods = roleMethodBytes.keySet.toArray(Array.empty[String]).toList
+      roleMethods.map(roleMethod => roleMethod -> roleMethodBytes.get(roleMethod)(0))
+    }
+  }
+
+  private val tracking = new ThreadLocal[Tracker] {
+    override def initialValue = new Tracker
+  }
+}
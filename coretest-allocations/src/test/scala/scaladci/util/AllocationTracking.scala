@@ -0,0 +1,61 @@
+package scaladci
+package util
+
+// Compiled with `-Xmacro-settings:scaladci.trackAllocations` (see build.sbt)
+
+class AllocationTracking extends DCIspecification {
+
+  // Data class keeping what it is given
+  class Ledger {
+    var entries: List[Int] = Nil
+  }
+
+  "Fails with the role methods that allocated" >> {
+
+    @context
+    case class Context(ledger: Ledger, data: Data) {
+      def trigger = data.record
+
+      role data {
+        def record = ledger.add(data.i)
+      }
+
+      role ledger {
+        def add(amount: Int) {
+          ledger.entries = amount :: ledger.entries
+        }
+      }
+    }
+
+    val context = Context(new Ledger, Data(5))
+    allocationBudget("Context", bytesPerCall = 0, calls = 10000, warmups = 10000)(context.trigger) must
+      throwAn[AssertionError].like { case e =>
+        e.getMessage must startWith("Context allocates")
+        e.getMessage must contain("Context.ledger.add")
+        e.getMessage must not(contain("Compile with"))
+      }
+  }
+
+
+  "Passes when the tracked trigger stays within budget" >> {
+
+    @context
+    case class Context(data: Data) {
+      val roleA = data
+      val roleB = data
+
+      def trigger = roleA.foo
+
+      role roleA {
+        def foo = 2 * roleB.bar
+      }
+
+      role roleB {
+        def bar = 3 * self.i
+      }
+    }
+
+    val context = Context(Data(5))
+    allocationBudget("Context", bytesPerCall = 0)(context.trigger).bytesPerCall === 0
+  }
+}
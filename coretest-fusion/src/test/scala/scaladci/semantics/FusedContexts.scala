@@ -0,0 +1,194 @@
+package scaladci
+package semantics
+import scaladci.util._
+
+// Compiled with `-Xmacro-settings:scaladci.fuseContexts` (see build.sbt)
+
+class FusedContexts extends DCIspecification {
+
+  // Inner contexts expanded before in an enclosing scope and having only constructor params,
+  // roles and methods get their methods lifted into the calling context instead of being
+  // instantiated on each call
+
+  def innerFrames = Thread.currentThread.getStackTrace.count(_.getClassName.contains("Inner"))
+
+
+  "Fused when only having roles and methods" >> {
+
+    @context
+    case class Inner(roleB: Data, roleC: Data) {
+      def trigger(n: Int) = roleB.bar(n)
+      def frames = roleC.frames
+
+      role roleB {
+        def bar(n: Int) = roleB.i + n * roleC.baz
+      }
+
+      role roleC {
+        def baz = roleC.i
+        def frames = innerFrames
+      }
+    }
+
+    @context
+    case class Outer(roleA: Data) {
+      def trigger = roleA.foo
+      def frames = new Inner(roleA, roleA).frames
+
+      role roleA {
+        def foo = "foo" + Inner(roleA, Data(1)).trigger(2) + "bar"
+      }
+    }
+
+    Outer(Data(42)).trigger === "foo44bar"
+
+    // No inner context on the stack
+    Outer(Data(42)).frames === 0
+  }
+
+
+  "Keep object identity when fused" >> {
+
+    @context
+    case class Inner(roleB: Data) {
+      def me = roleB.me
+      def frames = roleB.frames
+
+      role roleB {
+        def me = self
+        def frames = innerFrames
+      }
+    }
+
+    @context
+    case class Outer(roleA: Data) {
+      def me = roleA.me
+      def frames = roleA.frames
+
+      role roleA {
+        def me = Inner(roleA).me
+        def frames = Inner(roleA).frames
+      }
+    }
+
+    val obj = Data(42)
+    Outer(obj).frames === 0
+    (Outer(obj).me eq obj) === true
+  }
+
+
+  "Instantiated when having state" >> {
+
+    @context
+    case class Inner(roleB: Data) {
+      val roleC = Data(1)
+      def frames = roleB.frames
+
+      role roleB {
+        def frames = innerFrames
+      }
+    }
+
+    @context
+    case class Outer(roleA: Data) {
+      def frames = roleA.frames
+
+      role roleA {
+        def frames = Inner(roleA).frames
+      }
+    }
+
+    Outer(Data(42)).frames must be_>(0)
+  }
+
+
+  "Not fused when an inner scope defines another class of the same name" >> {
+
+    @context
+    case class Inner(roleB: Data) {
+      def trigger = roleB.bar
+
+      role roleB {
+        def bar = roleB.i
+      }
+    }
+
+    {
+      class Inner(data: Data) {
+        def trigger = data.i + 1000
+      }
+
+      @context
+      case class Outer(roleA: Data) {
+        def trigger = roleA.foo
+
+        role roleA {
+          def foo = new Inner(roleA).trigger
+        }
+      }
+
+      Outer(Data(42)).trigger === 1042
+    }
+  }
+
+
+  "Not fused when the calling context defines names used by the inner context" >> {
+
+    val factor = 2
+
+    @context
+    case class Inner(roleB: Data) {
+      def trigger = roleB.scaled
+
+      role roleB {
+        def scaled = roleB.i * factor
+      }
+    }
+
+    @context
+    case class Outer(roleA: Data, factor: Int) {
+      def trigger = roleA.foo
+
+      role roleA {
+        // `factor` still means the value outside both contexts
+        def foo = new Inner(roleA).trigger
+      }
+    }
+
+    Outer(Data(42), 1000).trigger === 84
+  }
+
+
+  "Names bound in the inner context's methods still mean the same when fused" >> {
+
+    @context
+    case class Inner(roleB: Data) {
+      def bar = 100
+      def frames = roleB.frames
+
+      // Lambda params, local values and pattern variables named like the method `bar`
+      def trigger = List(1, 2).map(bar => bar + roleB.i).sum
+      def local = {
+        val bar = 1
+        bar + roleB.i
+      }
+      def matched = Option(roleB.i) match {
+        case Some(bar) => bar
+        case None      => bar
+      }
+
+      role roleB {
+        def frames = innerFrames
+      }
+    }
+
+    @context
+    case class Outer(roleA: Data) {
+      def frames = Inner(roleA).frames
+      def all = List(Inner(roleA).trigger, Inner(roleA).local, Inner(roleA).matched, Inner(roleA).bar)
+    }
+
+    Outer(Data(1)).frames === 0
+    Outer(Data(1)).all === List(5, 2, 1, 100)
+  }
+}
@@ -28,4 +28,32 @@ class NestedContexts extends DCIspecification {
     val obj = Data(42)
     Outer(obj).trigger === "foo42bar"
   }
+
+
+  // Fusion of nested contexts (with `-Xmacro-settings:scaladci.fuseContexts`) is tested in coretest-fusion
+
+  "Instantiated on each call by default" >> {
+
+    def innerFrames = Thread.currentThread.getStackTrace.count(_.getClassName.contains("Inner"))
+
+    @context
+    case class Inner(roleB: Data) {
+      def frames = roleB.frames
+
+      role roleB {
+        def frames = innerFrames
+      }
+    }
+
+    @context
+    case class Outer(roleA: Data) {
+      def frames = roleA.frames
+
+      role roleA {
+        def frames = Inner(roleA).frames
+      }
+    }
+
+    Outer(Data(42)).frames must be_>(0)
+  }
 }
@@ -0,0 +1,71 @@
+package scaladci
+package examples
+import java.util.concurrent.ForkJoinPool
+
+import org.specs2.mutable._
+
+import scaladci.examples.dijkstra.synthetic.DeltaStepping._
+import scaladci.examples.dijkstra.synthetic.SyntheticGrid._
+import scaladci.examples.dijkstra.synthetic.ShortestPathTrees._
+
+// Repeated shortest path queries answered from cached shortest path trees
+// See `dijkstra/synthetic/ShortestPathTrees.scala` for the cache and context
+
+class DijkstraCached extends Specification {
+
+  def withPool[T](body: ForkJoinPool => T): T = {
+    val pool = new ForkJoinPool(4)
+    try body(pool) finally pool.shutdown()
+  }
+
+  "Answers queries from the same origin with one shortest path tree" >> withPool { pool =>
+    val city = ManhattanGrid(50, 50)
+    val cache = new ShortestPathTreeCache(city, maxTrees = 10, maxBytes = 1L << 20)
+    val startingPoint = Intersection(0)
+
+    for (destination <- List(Intersection(49), Intersection(1275), Intersection(2499))) {
+      val cached = new CachedDijkstra(city, startingPoint, destination, cache, pool, 20)
+      val calculated = new ParallelDijkstra(city, startingPoint, destination, pool, 20)
+      cached.shortestDistance === calculated.shortestDistance
+      city.lengthOf(cached.shortestPath) === calculated.shortestDistance
+      cached.shortestPath.head === startingPoint
+    }
+    cache.size === 1
+  }
+
+  "Evicts least recently used trees" >> withPool { pool =>
+    val city = ManhattanGrid(50, 50)
+    val (a, b, c) = (Intersection(0), Intersection(1), Intersection(2))
+    val destination = Intersection(2499)
+
+    // By number of trees
+    val fewTrees = new ShortestPathTreeCache(city, maxTrees = 2, maxBytes = 1L << 20)
+    List(a, b, a, c).foreach(origin => new CachedDijkstra(city, origin, destination, fewTrees, pool, 20))
+    fewTrees.size === 2
+    fewTrees.contains(a) === true
+    fewTrees.contains(b) === false
+
+    // By memory
+    val treeBytes = new ParallelDijkstra(city, a, destination, pool, 20).shortestPathTree.bytes
+    val littleMemory = new ShortestPathTreeCache(city, maxTrees = 10, maxBytes = 2 * treeBytes)
+    List(a, b, c).foreach(origin => new CachedDijkstra(city, origin, destination, littleMemory, pool, 20))
+    littleMemory.size === 2
+    littleMemory.usedBytes must be_<=(2 * treeBytes)
+    littleMemory.contains(a) === false
+  }
+
+  "Drops trees when the city changes" >> withPool { pool =>
+    val city = ManhattanGrid(50, 50)
+    val cache = new ShortestPathTreeCache(city, maxTrees = 10, maxBytes = 1L << 20)
+    val (startingPoint, destination) = (Intersection(0), Intersection(2499))
+
+    val before = new CachedDijkstra(city, startingPoint, destination, cache, pool, 20)
+    val firstBlock = Block(before.shortestPath(0), before.shortestPath(1))
+    city.changeBlockLength(firstBlock, 10000)
+    cache.contains(startingPoint) === false
+
+    val after = new CachedDijkstra(city, startingPoint, destination, cache, pool, 20)
+    after.shortestDistance === new ParallelDijkstra(city, startingPoint, destination, pool, 20).shortestDistance
+    after.shortestPath(1) !== before.shortestPath(1)
+  }
+}
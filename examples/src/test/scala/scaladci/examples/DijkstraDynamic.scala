@@ -0,0 +1,144 @@
+package scaladci
+package examples
+import java.util.concurrent.ForkJoinPool
+
+import org.specs2.mutable._
+
+import scaladci.examples.dijkstra.synthetic.DeltaStepping._
+import scaladci.examples.dijkstra.synthetic.SyntheticGrid._
+import scaladci.examples.dijkstra.synthetic.ShortestPathRepair._
+
+// Shortest path tree repaired after changed block lengths instead of calculated again
+// See `dijkstra/synthetic/ShortestPathRepair.scala` for the context
+
+class DijkstraDynamic extends Specification {
+
+  def shortestPathTree(city: ManhattanGrid, origin: Intersection) = {
+    val pool = new ForkJoinPool(2)
+    try new ParallelDijkstra(city, origin, origin, pool, 20).shortestPathTree finally pool.shutdown()
+  }
+
+  def repair(city: ManhattanGrid, tree: ShortestPathTree, changes: Seq[(Block, Int)]) =
+    new DynamicDijkstra(city, tree, city.changeBlockLengths(changes))
+
+  // Random existing blocks with new random lengths
+  def randomChanges(city: ManhattanGrid, count: Int, seed: Long): Seq[(Block, Int)] = {
+    val random = new scala.util.Random(seed)
+    Seq.fill(count) {
+      val x = random.nextInt(city.size - 1)
+      val neighbor = if (city.eastBlockLengths(x) > 0) x + 1 else x + city.width
+      Block(Intersection(x), Intersection(neighbor)) -> (1 + random.nextInt(city.longestBlock))
+    }
+  }
+
+  def sameAsCalculated(city: ManhattanGrid, repaired: ShortestPathTree) = {
+    val calculated = shortestPathTree(city, repaired.origin)
+    repaired.distances.toList === calculated.distances.toList
+
+    // Shortcuts can differ between equally short routes but always have to lead along one of them
+    // (unreachable intersections and the origin have themselves as shortcut)
+    for (x <- 0 until city.size if repaired.shortcuts(x) != x) {
+      val shortcut = repaired.shortcuts(x)
+      repaired.distances(x) === repaired.distances(shortcut) + city.blockLengths(Block(Intersection(shortcut), Intersection(x)))
+    }
+    success
+  }
+
+  "Repairs routes through blocks that got longer" >> {
+    val city = ManhattanGrid(40, 40)
+    val origin = Intersection(0)
+    val tree = shortestPathTree(city, origin)
+    val destination = Intersection(city.size - 1)
+    val x = tree.shortcuts(destination.id)
+
+    val repaired = repair(city, tree, Seq(Block(Intersection(x), destination) -> 10000))
+    repaired.shortestPathTree.shortcuts(destination.id) !== x
+    sameAsCalculated(city, repaired.shortestPathTree)
+  }
+
+  "Repairs routes through blocks that got shorter" >> {
+    val city = ManhattanGrid(40, 40)
+    val origin = Intersection(0)
+    val tree = shortestPathTree(city, origin)
+
+    val repaired = repair(city, tree, Seq(Block(Intersection(800), Intersection(801)) -> 1))
+    sameAsCalculated(city, repaired.shortestPathTree)
+  }
+
+  "Repairs batches of changes" >> {
+    val city = ManhattanGrid(60, 60)
+    var tree = shortestPathTree(city, Intersection(0))
+
+    for (batch <- 1 to 5) {
+      tree = repair(city, tree, randomChanges(city, 50, batch)).shortestPathTree
+      sameAsCalculated(city, tree)
+    }
+    success
+  }
+
+  "Only looks at the part of the tree that changes" >> {
+    val city = ManhattanGrid(100, 100)
+    val tree = shortestPathTree(city, Intersection(0))
+
+    // No route but the one to the last intersection can lead through the last block
+    val lastBlock = Block(Intersection(city.size - 2), Intersection(city.size - 1))
+    val repaired = repair(city, tree, Seq(lastBlock -> (city.blockLengths(lastBlock) + 1)))
+    repaired.repairedIntersections must be_<=(1)
+  }
+
+  "Repairs every tree of the city with the same batch" >> {
+    val city = ManhattanGrid(40, 40)
+    val trees = List(0, 820, 1599).map(id => shortestPathTree(city, Intersection(id)))
+    val changes = city.changeBlockLengths(randomChanges(city, 50, 1))
+
+    trees.foreach(tree => sameAsCalculated(city, new DynamicDijkstra(city, tree, changes).shortestPathTree))
+    success
+  }
+
+  "Repairs a tree that missed several batches with the batches combined" >> {
+    val city = ManhattanGrid(40, 40)
+    val tree = shortestPathTree(city, Intersection(0))
+    val first = city.changeBlockLengths(randomChanges(city, 30, 1))
+    val second = city.changeBlockLengths(randomChanges(city, 30, 2))
+
+    // The tree is older than the second batch, and the city newer than the first
+    new DynamicDijkstra(city, tree, second) must throwA[IllegalArgumentException]
+    new DynamicDijkstra(city, tree, first) must throwA[IllegalArgumentException]
+
+    sameAsCalculated(city, new DynamicDijkstra(city, tree, first andThen second).shortestPathTree)
+  }
+
+  "Keeps the cached trees repaired" >> {
+    val city = ManhattanGrid(40, 40)
+    val cache = new ShortestPathTreeCache(city, maxTrees = 10, maxBytes = 1L << 20)
+    List(0, 820).foreach(id => cache.put(shortestPathTree(city, Intersection(id))))
+
+    val changes = city.changeBlockLengths(randomChanges(city, 50, 1))
+    cache.repair(changes)(new DynamicDijkstra(city, _, changes).shortestPathTree)
+
+    cache.size === 2
+    List(0, 820).foreach(id => sameAsCalculated(city, cache.get(Intersection(id)).get))
+    success
+  }
+
+  "Leaves the previous tree as it was" >> {
+    val city = ManhattanGrid(40, 40)
+    val tree = shortestPathTree(city, Intersection(0))
+    val (distances, shortcuts) = (tree.distances.toList, tree.shortcuts.toList)
+
+    val repaired = repair(city, tree, randomChanges(city, 50, 1)).shortestPathTree
+    tree.distances.toList === distances
+    tree.shortcuts.toList === shortcuts
+    (repaired.distances ne tree.distances) === true
+  }
+
+  "Changes nothing when a batch has an invalid block length" >> {
+    val city = ManhattanGrid(10, 10)
+    val (first, second) = (Block(Intersection(0), Intersection(1)), Block(Intersection(1), Intersection(2)))
+    val (firstLength, version) = (city.blockLengths(first), city.version)
+
+    city.changeBlockLengths(Seq(first -> (firstLength + 1), second -> 0)) must throwAn[IllegalArgumentException]
+    city.blockLengths(first) === firstLength
+    city.version === version
+  }
+}
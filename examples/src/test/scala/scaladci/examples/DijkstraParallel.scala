@@ -0,0 +1,58 @@
+package scaladci
+package examples
+import java.util.concurrent.ForkJoinPool
+
+import org.specs2.mutable._
+
+import scaladci.examples.dijkstra.synthetic.DeltaStepping._
+import scaladci.examples.dijkstra.synthetic.SyntheticGrid._
+
+// Parallel delta-stepping shortest path validated against the sequential Dijkstra context
+// See `dijkstra/synthetic/DeltaStepping.scala` for the contexts
+
+class DijkstraParallel extends Specification {
+
+  def withPool[T](threads: Int)(body: ForkJoinPool => T): T = {
+    val pool = new ForkJoinPool(threads)
+    try body(pool) finally pool.shutdown()
+  }
+
+  "Finds shortest paths as long as the sequential Dijkstra" >> {
+    val city = ManhattanGrid(20, 20)
+    val startingPoint = Intersection(0)
+    val destinations = List(Intersection(19), Intersection(210), Intersection(399))
+
+    withPool(4) { pool =>
+      for (destination <- destinations; delta <- List(1, 10, 100)) {
+        val expected = new SequentialDijkstra(city, startingPoint, destination).shortestPath
+        val parallel = new ParallelDijkstra(city, startingPoint, destination, pool, delta)
+
+        parallel.shortestPath.head === startingPoint
+        parallel.shortestPath.last === destination
+        parallel.shortestDistance === city.lengthOf(expected)
+        city.lengthOf(parallel.shortestPath) === city.lengthOf(expected)
+      }
+    }
+    success
+  }
+
+  "Finds the same distances with any number of threads" >> {
+    val city = ManhattanGrid(300, 300, longestBlock = 50)
+    val startingPoint = Intersection(0)
+    val destination = Intersection(city.size - 1)
+
+    val distances = List(1, 2, 4, 8).map { threads =>
+      withPool(threads) { pool =>
+        val parallel = new ParallelDijkstra(city, startingPoint, destination, pool, 25)
+        city.lengthOf(parallel.shortestPath) === parallel.shortestDistance
+        parallel.shortestDistance
+      }
+    }
+    distances.distinct.size === 1
+  }
+
+  "Requires a positive delta" >> withPool(1) { pool =>
+    new ParallelDijkstra(ManhattanGrid(2, 2), Intersection(0), Intersection(3), pool, 0) must
+      throwAn[IllegalArgumentException]
+  }
+}
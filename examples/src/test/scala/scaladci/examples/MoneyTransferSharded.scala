@@ -0,0 +1,150 @@
+package scaladci
+package examples
+import java.io.{BufferedReader, File, InputStreamReader}
+import java.nio.charset.StandardCharsets.UTF_8
+import java.util.concurrent.{Callable, Executors, TimeUnit}
+import scala.collection.JavaConverters._
+
+import org.specs2.mutable._
+
+import scaladci.examples.sharding.Data._
+import scaladci.examples.sharding.{ShardedBank, ShardWorker}
+import scaladci.examples.sharding.ShardWorker._
+import scaladci.examples.sharding.Wire._
+
+// Money transfers between accounts partitioned over shard worker processes
+// See `sharding/ShardedBank.scala` for the coordinator and the cross-shard context
+
+class MoneyTransferSharded extends Specification {
+  sequential
+
+  def withBank[T](shards: Int)(body: ShardedBank => T): T = {
+    val bank = new ShardedBank(shards)
+    try body(bank) finally bank.close()
+  }
+
+  // Two accounts in the same shard and two in different shards
+  def accounts(bank: ShardedBank) = {
+    val names = (1 to 100).map("account" + _)
+    val sameShard = names.combinations(2).find { case Seq(a, b) => bank.shardOf(a) == bank.shardOf(b) }.get
+    val otherShards = names.combinations(2).find { case Seq(a, b) => bank.shardOf(a) != bank.shardOf(b) }.get
+    (sameShard, otherShards)
+  }
+
+
+  "Wire format round trips requests and responses" >> {
+    val requests = List(Open("salary", 1000), Balance("budget"), Transfer("salary", "budget", 50),
+      Prepare(Long.MaxValue, "\u00e6\u00f8\u00e5", -50), Commit(7), Abort(7), Shutdown)
+
+    requests.map(request => decodeRequest(nextFrame(encode(request)).get)) === requests
+    decodeResponse(nextFrame(encode(Response(ok = true, -3))).get) === Response(ok = true, -3)
+
+    // Waits for the rest of a frame
+    val partial = encode(Balance("budget"))
+    partial.limit(partial.limit - 1)
+    nextFrame(partial) === None
+  }
+
+
+  "Transfer part holds withdrawals until committed or aborted" >> {
+    val account = Account("salary", 100)
+
+    new TransferPart(account, -150).prepare() === false
+    account.balance === 100
+
+    val aborted = new TransferPart(account, -60)
+    aborted.prepare() === true
+    account.balance === 40
+    aborted.abort()
+    account.balance === 100
+
+    val deposit = new TransferPart(account, 25)
+    deposit.prepare() === true
+    account.balance === 100
+    deposit.commit()
+    account.balance === 125
+  }
+
+
+  "Transfers within a shard" >> withBank(3) { bank =>
+    val (Seq(source, destination), _) = accounts(bank)
+    bank.open(source, 1000) === true
+    bank.open(destination, 500) === true
+
+    bank.transfer(source, destination, 300) === true
+    bank.balance(source) === Some(700)
+    bank.balance(destination) === Some(800)
+
+    // Can't overdraw
+    bank.transfer(source, destination, 701) === false
+    bank.balance(source) === Some(700)
+  }
+
+
+  "Transfers between shards" >> withBank(3) { bank =>
+    val (_, Seq(source, destination)) = accounts(bank)
+    bank.open(source, 1000) === true
+    bank.open(destination, 500) === true
+
+    bank.transfer(source, destination, 300) === true
+    bank.balance(source) === Some(700)
+    bank.balance(destination) === Some(800)
+
+    // Aborted when the source can't afford it...
+    bank.transfer(source, destination, 701) === false
+    bank.balance(source) === Some(700)
+    bank.balance(destination) === Some(800)
+
+    // ...or the destination doesn't exist
+    val missing = (1 to 100).map("missing" + _).find(bank.shardOf(_) != bank.shardOf(source)).get
+    bank.transfer(source, missing, 100) === false
+    bank.balance(source) === Some(700)
+    bank.balance(missing) === None
+  }
+
+
+  "Concurrent transfers keep the total balance" >> withBank(4) { bank =>
+    val names = (1 to 20).map("account" + _)
+    names.foreach(bank.open(_, 100))
+
+    val pool = Executors.newFixedThreadPool(8)
+    val transfers = (1 to 8).map { thread =>
+      new Callable[Int] {
+        def call() = {
+          val random = new scala.util.Random(thread)
+          (1 to 200).count { _ =>
+            val source = names(random.nextInt(names.size))
+            val destination = names(random.nextInt(names.size))
+            bank.transfer(source, destination, 1 + random.nextInt(50))
+          }
+        }
+      }
+    }
+    try {
+      val succeeded = pool.invokeAll(transfers.asJava).asScala.map(_.get).sum
+      succeeded must be_>(0)
+    } finally {
+      pool.shutdown()
+      pool.awaitTermination(10, TimeUnit.SECONDS)
+    }
+
+    val balances = names.map(bank.balance(_).get)
+    balances.sum === 20 * 100
+    balances.forall(_ >= 0) === true
+  }
+
+
+  "Workers exit when the coordinator goes away" >> {
+    val java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath
+    val worker = new ProcessBuilder(java, "-cp", ShardedBank.workerClasspath, ShardWorker.getClass.getName.stripSuffix("$"))
+      .redirectError(ProcessBuilder.Redirect.INHERIT)
+      .start()
+    try {
+      new BufferedReader(new InputStreamReader(worker.getInputStream, UTF_8)).readLine() must startWith("PORT ")
+
+      // As when the coordinator process dies without ever connecting
+      worker.getOutputStream.close()
+      worker.waitFor(10, TimeUnit.SECONDS) === true
+    } finally worker.destroyForcibly()
+  }
+}
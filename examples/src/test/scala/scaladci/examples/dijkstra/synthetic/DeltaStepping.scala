@@ -0,0 +1,258 @@
+package scaladci
+package examples.dijkstra.synthetic
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.{Callable, ForkJoinPool}
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+
+import SyntheticGrid._
+
+/*
+Parallel shortest path with delta-stepping (Meyer & Sanders)
+
+The Dijkstra contexts in Step1_TentDist..Step5_6_Recurse settle one CURRENT INTERSECTION at a time and
+therefore only ever keep one core busy. Delta-stepping relaxes the ordering: DETOURS are kept in buckets
+of width `delta` according to their TENTATIVE DISTANCE, and all intersections of the smallest non-empty
+bucket are considered at once:
+
+  1.  Assign a TENTATIVE DISTANCE of zero to the CURRENT INTERSECTION (our starting point) and put it in
+      the first bucket of DETOURS.
+
+  2.  Take the intersections out of the smallest non-empty bucket and calculate the tentative distance
+      of their neighbors through "light" blocks (not longer than delta). Neighbors getting a shorter
+      distance are put in the bucket matching it - which may be the current bucket again. Repeat until
+      the current bucket stays empty.
+
+  3.  Calculate the tentative distances through the "heavy" blocks (longer than delta) of all
+      intersections taken out of the bucket. These can only land in later buckets.
+
+  4.  Stop when the DESTINATION has a tentative distance in an already emptied bucket or when all
+      buckets are empty, otherwise go back to step 2.
+
+The relaxations of step 2 and 3 are spread over the threads of a ForkJoinPool. Each intersection has
+one slot in an AtomicLongArray holding both its tentative distance (high 32 bits) and its shortcut
+(low 32 bits), so that concurrent improvements of the same intersection always leave a matching pair.
+
+The sequential Dijkstra context from `examples/Dijkstra.scala` is repeated below as SequentialDijkstra for
+the synthetic grid, so that both can be compared on the same data.
+*/
+
+object DeltaStepping {
+
+  // Context ##################################################################
+
+  @context
+  class ParallelDijkstra(
+    city: ManhattanGrid,
+    currentIntersection: Intersection,
+    destination: Intersection,
+    pool: ForkJoinPool,
+    delta: Int
+  ) {
+    require(delta > 0, s"Bucket width delta has to be positive. Found: $delta")
+
+    private val unreached    = Int.MaxValue / 4
+    private val minChunkSize = 512
+    private val cityVersion  = city.version
+
+    val tentativeDistances = new AtomicLongArray(city.size)
+    val detours            = new mutable.LongMap[mutable.ArrayBuilder.ofInt]
+
+    // Algorithm
+    currentIntersection.startRoute()
+    private var bucket = detours.nextBucket
+    while (bucket >= 0 && !destination.isReachedBefore(bucket)) {
+      detours.settleBucket(bucket)
+      bucket = detours.nextBucket
+    }
+
+    // Context helper methods
+    private def pack(distance: Int, shortcut: Int) = (distance.toLong << 32) | (shortcut & 0xffffffffL)
+
+    // Kept out of the roles since anonymous classes don't survive the role method transformation
+    private def inParallel(chunks: Int)(work: Int => Array[Int]): Array[Int] = {
+      val tasks: Seq[Callable[Array[Int]]] = (0 until chunks).map { chunk =>
+        new Callable[Array[Int]] {
+          def call() = work(chunk)
+        }
+      }
+      Array.concat(pool.invokeAll(tasks.asJava).asScala.map(_.get): _*)
+    }
+
+    def shortestDistance = tentativeDistances.distanceTo(destination.id)
+    def pathTo(x: Intersection): List[Intersection] = {
+      val shortcut = tentativeDistances.shortcutTo(x.id)
+      if (shortcut == x.id) List(x) else x :: pathTo(Intersection(shortcut))
+    }
+    def shortestPath = pathTo(destination).reverse
+
+    // Settles the remaining detours so that the shortest path to every intersection is known
+    def shortestPathTree = {
+      while (bucket >= 0) {
+        detours.settleBucket(bucket)
+        bucket = detours.nextBucket
+      }
+      ShortestPathTree(currentIntersection, cityVersion,
+        Array.tabulate(city.size)(tentativeDistances.distanceTo), Array.tabulate(city.size)(tentativeDistances.shortcutTo))
+    }
+
+    // Roles
+
+    role currentIntersection {
+      def startRoute() {
+        tentativeDistances.initialize()
+        detours.schedule(currentIntersection.id)
+      }
+    }
+
+    role destination {
+      def isReachedBefore(bucket: Int) = tentativeDistances.distanceTo(destination.id) / delta < bucket
+    }
+
+    role tentativeDistances {
+      def initialize() {
+        var x = 0
+        while (x < city.size) {
+          tentativeDistances.set(x, pack(unreached, x))
+          x += 1
+        }
+        tentativeDistances.set(currentIntersection.id, pack(0, currentIntersection.id))
+      }
+      def distanceTo(x: Int) = (tentativeDistances.get(x) >>> 32).toInt
+      def shortcutTo(x: Int) = tentativeDistances.get(x).toInt
+
+      // Lock-free: retry while our distance is still shorter than the one another thread just set
+      def improve(from: Int, to: Int, length: Int): Boolean = {
+        val newTentDistance = distanceTo(from) + length
+        var current = tentativeDistances.get(to)
+        var improved = false
+        while (!improved && (current >>> 32).toInt > newTentDistance) {
+          improved = tentativeDistances.compareAndSet(to, current, pack(newTentDistance, from))
+          current = tentativeDistances.get(to)
+        }
+        improved
+      }
+    }
+
+    role detours {
+      def schedule(x: Int) {
+        detours.getOrElseUpdate(tentativeDistances.distanceTo(x) / delta, new mutable.ArrayBuilder.ofInt) += x
+      }
+      def nextBucket = if (detours.isEmpty) -1 else detours.keysIterator.min.toInt
+
+      // Intersections that improved into an earlier bucket in the meanwhile are left out
+      def takeFrontier(bucket: Int): Array[Int] = detours.remove(bucket) match {
+        case Some(scheduled) => scheduled.result().filter(tentativeDistances.distanceTo(_) / delta == bucket).distinct
+        case None            => Array.empty[Int]
+      }
+      def settleBucket(bucket: Int) {
+        val settled = new mutable.ArrayBuilder.ofInt
+        var frontier = takeFrontier(bucket)
+        while (frontier.nonEmpty) {
+          settled ++= frontier
+          city.relaxBlocksFrom(frontier, light = true) foreach schedule
+          frontier = takeFrontier(bucket)
+        }
+        city.relaxBlocksFrom(settled.result().distinct, light = false) foreach schedule
+      }
+    }
+
+    role city {
+      // Returns the intersections that got a shorter tentative distance (possibly more than once)
+      def relaxBlocksFrom(frontier: Array[Int], light: Boolean): Array[Int] = {
+        val chunks = math.min(pool.getParallelism, math.max(1, frontier.length / minChunkSize))
+        if (chunks == 1)
+          relaxChunk(frontier, 0, frontier.length, light)
+        else {
+          val chunkSize = (frontier.length + chunks - 1) / chunks
+          inParallel(chunks)(chunk => relaxChunk(frontier, chunk * chunkSize, math.min(frontier.length, (chunk + 1) * chunkSize), light))
+        }
+      }
+      def relaxChunk(frontier: Array[Int], from: Int, until: Int, light: Boolean): Array[Int] = {
+        val improved = new mutable.ArrayBuilder.ofInt
+        var i = from
+        while (i < until) {
+          val x = frontier(i)
+          relaxBlock(x, x + 1, city.eastBlockLengths(x), light, improved)
+          relaxBlock(x, x + city.width, city.southBlockLengths(x), light, improved)
+          i += 1
+        }
+        improved.result()
+      }
+      def relaxBlock(from: Int, to: Int, length: Int, light: Boolean, improved: mutable.ArrayBuilder.ofInt) {
+        if (length > 0 && (length <= delta) == light && tentativeDistances.improve(from, to, length))
+          improved += to
+      }
+    }
+  }
+
+
+  // Sequential reference (same context as in `examples/Dijkstra.scala`) #######
+
+  @context
+  class SequentialDijkstra(
+    city: ManhattanGrid,
+    currentIntersection: Intersection,
+    destination: Intersection,
+    tentativeDistances: mutable.HashMap[Intersection, Int] = mutable.HashMap[Intersection, Int](),
+    detours: mutable.Set[Intersection] = mutable.Set[Intersection](),
+    shortcuts: mutable.HashMap[Intersection, Intersection] = mutable.HashMap[Intersection, Intersection]()
+  ) {
+
+    // Algorithm
+    if (tentativeDistances.isEmpty) {
+      tentativeDistances.initialize
+      detours.initialize
+    }
+    currentIntersection.calculateTentativeDistanceOfNeighbors
+    if (detours contains destination) {
+      val nextCurrent = detours.withSmallestTentativeDistance
+      new SequentialDijkstra(city, nextCurrent, destination, tentativeDistances, detours, shortcuts)
+    }
+
+    // Context helper methods
+    def pathTo(x: Intersection): List[Intersection] = if (!shortcuts.contains(x)) List(x) else x :: pathTo(shortcuts(x))
+    def shortestPath = pathTo(destination).reverse
+
+    // Roles
+
+    role tentativeDistances {
+      def initialize {
+        tentativeDistances.put(currentIntersection, 0)
+        city.intersections.filter(_ != currentIntersection).foreach(tentativeDistances.put(_, Int.MaxValue / 4))
+      }
+    }
+
+    role detours {
+      def initialize { detours ++= city.intersections }
+      def withSmallestTentativeDistance = { detours.reduce((x, y) => if (tentativeDistances(x) < tentativeDistances(y)) x else y) }
+    }
+
+    role currentIntersection {
+      def calculateTentativeDistanceOfNeighbors {
+        city.eastNeighbor foreach updateNeighborDistance
+        city.southNeighbor foreach updateNeighborDistance
+        detours remove currentIntersection
+      }
+      def updateNeighborDistance(neighborIntersection: Intersection) {
+        if (detours.contains(neighborIntersection)) {
+          val newTentDistanceToNeighbor = currentDistance + lengthOfBlockTo(neighborIntersection)
+          val currentTentDistToNeighbor = tentativeDistances(neighborIntersection)
+          if (newTentDistanceToNeighbor < currentTentDistToNeighbor) {
+            tentativeDistances.update(neighborIntersection, newTentDistanceToNeighbor)
+            shortcuts.put(neighborIntersection, currentIntersection)
+          }
+        }
+      }
+      def currentDistance = tentativeDistances(currentIntersection)
+      def lengthOfBlockTo(neighbor: Intersection) = city.distanceBetween(currentIntersection, neighbor)
+    }
+
+    role city {
+      def distanceBetween(from: Intersection, to: Intersection) = city.blockLengths(Block(from, to))
+      def eastNeighbor = city.nextDownTheStreet.get(currentIntersection)
+      def southNeighbor = city.nextAlongTheAvenue.get(currentIntersection)
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package scaladci
+package examples.dijkstra.synthetic
+import java.util.concurrent.ForkJoinPool
+
+import DeltaStepping._
+import SyntheticGrid._
+
+/*
+Speedup of the ParallelDijkstra (delta-stepping) context by number of threads on a large synthetic grid.
+
+Run with `sbt "scaladci-examples/test:runMain scaladci.examples.dijkstra.synthetic.DeltaSteppingBenchmark"`
+*/
+
+object DeltaSteppingBenchmark extends App {
+
+  val city          = ManhattanGrid(1000, 1000)
+  val startingPoint = Intersection(0)
+  val destination   = Intersection(city.size - 1)
+  val delta         = 50
+  val warmups       = 3
+  val runs          = 5
+  val threadCounts  = Iterator.iterate(1)(_ * 2).takeWhile(_ <= Runtime.getRuntime.availableProcessors).toList
+
+  def millisPerQuery(threads: Int): Double = {
+    val pool = new ForkJoinPool(threads)
+    try {
+      (1 to warmups).foreach(_ => new ParallelDijkstra(city, startingPoint, destination, pool, delta))
+      val start = System.nanoTime
+      (1 to runs).foreach(_ => new ParallelDijkstra(city, startingPoint, destination, pool, delta))
+      (System.nanoTime - start) / runs / 1e6
+    } finally pool.shutdown()
+  }
+
+  println(s"${city.width} x ${city.height} grid, delta $delta")
+  val timings  = threadCounts.map(threads => threads -> millisPerQuery(threads))
+  val baseline = timings.head._2
+  timings.foreach { case (threads, millis) =>
+    println(f"$threads%3d threads: $millis%9.1f ms  speedup ${baseline / millis}%5.2f")
+  }
+}
@@ -0,0 +1,131 @@
+package scaladci
+package examples.dijkstra.synthetic
+import scala.collection.mutable
+
+import SyntheticGrid._
+
+/*
+Repairing a shortest path tree when block lengths change
+
+When the traffic makes some blocks longer or shorter, only the routes through those blocks can change.
+Instead of calculating all TENTATIVE DISTANCES again, the DynamicDijkstra context repairs a copy of an
+existing ShortestPathTree (in the spirit of the dynamic shortest path algorithm by Ramalingam & Reps).
+
+The batch of changed block lengths is applied to the city once (`ManhattanGrid.changeBlockLengths`), which
+tells the old and new length of each changed block. Any number of trees built for the version of the city
+before the batch can then be repaired with those changes:
+
+  1.  For each block that got longer and was a SHORTCUT in the tree, detach the intersections reached
+      through it (the subtree below the block) and forget their tentative distances.
+
+  2.  Give each detached intersection a tentative distance through its neighbors still in the tree and
+      add it to the DETOURS.
+
+  3.  For each block that got shorter, improve the tentative distance of the intersection it leads to
+      and add that to the DETOURS if it got shorter.
+
+  4.  As in Dijkstra, repeatedly take the detour with the smallest tentative distance and improve its
+      neighbors until there are no more detours.
+
+Only detached or improved intersections and their neighbors are ever looked at. A tree that missed more
+than one batch is repaired with the batches combined (`BlockLengthChanges.andThen`).
+*/
+
+object ShortestPathRepair {
+
+  // Context ##################################################################
+
+  @context
+  class DynamicDijkstra(city: ManhattanGrid, previousTree: ShortestPathTree, changes: BlockLengthChanges) {
+    require(previousTree.cityVersion == changes.fromVersion,
+      s"Tree was built for version ${previousTree.cityVersion} of the city but the changes start at version ${changes.fromVersion}")
+    require(changes.toVersion == city.version,
+      s"City has changed since version ${changes.toVersion}. Please repair with all changes since the tree was built.")
+
+    // Same as in ParallelDijkstra
+    private val unreached = Int.MaxValue / 4
+    private var repaired  = 0
+
+    // Repaired in a copy, so that the previous tree (maybe shared from a cache) stays as it was
+    val tentativeDistances: Array[Int]             = previousTree.distances.clone()
+    val shortcuts: Array[Int]                      = previousTree.shortcuts.clone()
+    val detours: mutable.PriorityQueue[(Int, Int)] = mutable.PriorityQueue[(Int, Int)]()(Ordering.by[(Int, Int), Int](-_._1))
+
+    // Algorithm
+
+    private val (longer, shorter) = changes.lengths.partition { case (_, (oldLength, newLength)) => newLength > oldLength }
+
+    longer.keys.flatMap(shortcuts.detachSubtreeFrom).foreach(tentativeDistances.seedFromNeighbors)
+    shorter.foreach { case (block, (_, length)) => tentativeDistances.improve(block.x.id, block.y.id, length) }
+    detours.propagate()
+
+    // Context helper methods
+
+    def shortestPathTree = ShortestPathTree(previousTree.origin, changes.toVersion, tentativeDistances, shortcuts)
+    def repairedIntersections = repaired
+
+    // Roles
+
+    role shortcuts {
+      // Intersections whose route led through `block`, having their tentative distances forgotten
+      def detachSubtreeFrom(block: Block): Seq[Int] = {
+        val root = block.y.id
+        if (shortcuts(root) != block.x.id || tentativeDistances(root) == unreached)
+          Nil
+        else {
+          val subtree = mutable.ArrayBuffer(root)
+          tentativeDistances(root) = unreached
+          var i = 0
+          while (i < subtree.length) {
+            val x = subtree(i)
+            if (city.eastBlockLengths(x) > 0) detach(x, x + 1, subtree)
+            if (city.southBlockLengths(x) > 0) detach(x, x + city.width, subtree)
+            i += 1
+          }
+          subtree
+        }
+      }
+      def detach(x: Int, neighbor: Int, subtree: mutable.ArrayBuffer[Int]) {
+        if (shortcuts(neighbor) == x && tentativeDistances(neighbor) != unreached) {
+          tentativeDistances(neighbor) = unreached
+          subtree += neighbor
+        }
+      }
+    }
+
+    role tentativeDistances {
+      def seedFromNeighbors(x: Int) {
+        shortcuts(x) = x
+        if (x % city.width > 0) improve(x - 1, x, city.eastBlockLengths(x - 1))
+        if (x >= city.width) improve(x - city.width, x, city.southBlockLengths(x - city.width))
+      }
+      def improve(from: Int, to: Int, length: Int) {
+        if (length > 0 && tentativeDistances(from) + length < tentativeDistances(to)) {
+          tentativeDistances(to) = tentativeDistances(from) + length
+          shortcuts(to) = from
+          detours.schedule(to)
+        }
+      }
+    }
+
+    role detours {
+      def schedule(x: Int) { detours.enqueue((tentativeDistances(x), x)) }
+      def propagate() {
+        while (detours.nonEmpty) {
+          val (tentDistance, x) = detours.dequeue()
+          if (tentDistance == tentativeDistances(x)) {
+            city.relaxBlocksFrom(x)
+            repaired += 1
+          }
+        }
+      }
+    }
+
+    role city {
+      def relaxBlocksFrom(x: Int) {
+        if (city.eastBlockLengths(x) > 0) tentativeDistances.improve(x, x + 1, city.eastBlockLengths(x))
+        if (city.southBlockLengths(x) > 0) tentativeDistances.improve(x, x + city.width, city.southBlockLengths(x))
+      }
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package scaladci
+package examples.dijkstra.synthetic
+import java.util.concurrent.ForkJoinPool
+
+import DeltaStepping._
+import SyntheticGrid._
+import ShortestPathRepair._
+
+/*
+Latency of repairing a shortest path tree (DynamicDijkstra) compared to calculating it again
+(ParallelDijkstra) for batches of changed block lengths on a large synthetic grid.
+
+Run with `sbt "scaladci-examples/test:runMain scaladci.examples.dijkstra.synthetic.ShortestPathRepairBenchmark"`
+*/
+
+object ShortestPathRepairBenchmark extends App {
+
+  val city       = ManhattanGrid(1000, 1000)
+  val origin     = Intersection(0)
+  val delta      = 50
+  val batches    = 20
+  val batchSizes = List(1, 10, 100, 1000)
+  val random     = new scala.util.Random(7)
+  val pool       = new ForkJoinPool()
+
+  def randomChanges(count: Int): Seq[(Block, Int)] = Seq.fill(count) {
+    val x = random.nextInt(city.size - 1)
+    val neighbor = if (city.eastBlockLengths(x) > 0) x + 1 else x + city.width
+    Block(Intersection(x), Intersection(neighbor)) -> (1 + random.nextInt(city.longestBlock))
+  }
+
+  def calculate() = new ParallelDijkstra(city, origin, origin, pool, delta).shortestPathTree
+
+  try {
+    println(s"${city.width} x ${city.height} grid, ${pool.getParallelism} threads for recalculation")
+    var tree = calculate()
+    batchSizes.foreach { batchSize =>
+      var repairNanos, calculateNanos = 0L
+      var repairedIntersections = 0L
+      (1 to batches).foreach { _ =>
+        val changes = city.changeBlockLengths(randomChanges(batchSize))
+
+        val start = System.nanoTime
+        val repair = new DynamicDijkstra(city, tree, changes)
+        repairNanos += System.nanoTime - start
+        repairedIntersections += repair.repairedIntersections
+        tree = repair.shortestPathTree
+
+        val calculateStart = System.nanoTime
+        calculate()
+        calculateNanos += System.nanoTime - calculateStart
+      }
+      println(f"$batchSize%5d changes: repair ${repairNanos / batches / 1e6}%8.2f ms " +
+        f"(${repairedIntersections / batches}%7d intersections)  recalculate ${calculateNanos / batches / 1e6}%8.2f ms")
+    }
+  } finally pool.shutdown()
+}
@@ -0,0 +1,55 @@
+package scaladci
+package examples.dijkstra.synthetic
+import java.util.concurrent.ForkJoinPool
+
+import DeltaStepping._
+import SyntheticGrid._
+
+/*
+Cached shortest path trees for repeated queries from the same origin
+
+Each Dijkstra context calculates tentative distances and shortcuts from scratch. When many destinations
+are asked for from a few origins, the shortest path tree of an origin can be kept and later queries
+answered by just following the shortcuts back from the destination (O(path length)).
+
+Trees are kept per city, evicted least recently used first when either `maxTrees` or `maxBytes` would be
+exceeded, and dropped all together as soon as the city changes (see `ManhattanGrid.version`) unless they
+are repaired with the batch of changes (see `ShortestPathTreeCache.repair` and ShortestPathRepair).
+*/
+
+object ShortestPathTrees {
+
+  // Context ##################################################################
+
+  @context
+  class CachedDijkstra(
+    city: ManhattanGrid,
+    currentIntersection: Intersection,
+    destination: Intersection,
+    cache: ShortestPathTreeCache,
+    pool: ForkJoinPool,
+    delta: Int
+  ) {
+
+    // Algorithm
+    val shortestPathTree = cache.shortestPathTreeFrom(currentIntersection)
+
+    // Context helper methods
+    def shortestDistance = shortestPathTree.distances(destination.id)
+    def pathTo(x: Intersection): List[Intersection] = {
+      val shortcut = shortestPathTree.shortcuts(x.id)
+      if (shortcut == x.id) List(x) else x :: pathTo(Intersection(shortcut))
+    }
+    def shortestPath = pathTo(destination).reverse
+
+    // Roles
+
+    role cache {
+      def shortestPathTreeFrom(origin: Intersection) = cache.get(origin) getOrElse {
+        val calculated = new ParallelDijkstra(city, origin, destination, pool, delta).shortestPathTree
+        cache.put(calculated)
+        calculated
+      }
+    }
+  }
+}
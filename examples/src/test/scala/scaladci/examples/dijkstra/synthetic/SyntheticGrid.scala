@@ -0,0 +1,147 @@
+package scaladci
+package examples.dijkstra.synthetic
+
+// Data for the DeltaStepping, ShortestPathTrees and ShortestPathRepair contexts. Kept in a
+// separate scope from the contexts so that the @context macro can look up the types of the
+// Role Players.
+
+object SyntheticGrid {
+
+  // Data #####################################################################
+
+  case class Intersection(id: Int)
+  case class Block(x: Intersection, y: Intersection)
+
+  // Synthetic Manhattan grid of `width` x `height` intersections with random block lengths.
+  // As in the hand-made grid, blocks lead east (down the street) and south (along the avenue).
+  case class ManhattanGrid(width: Int, height: Int, longestBlock: Int = 100, seed: Long = 42L) {
+    val size = width * height
+
+    // Length of the block to the east/south neighbor of each intersection (0 = no block)
+    private val random    = new scala.util.Random(seed)
+    val eastBlockLengths  = Array.tabulate(size)(i => if ((i + 1) % width == 0) 0 else 1 + random.nextInt(longestBlock))
+    val southBlockLengths = Array.tabulate(size)(i => if (i + width >= size) 0 else 1 + random.nextInt(longestBlock))
+
+    // Same vocabulary as the hand-made ManhattanGrid
+    lazy val intersections      = (0 until size).map(Intersection).toList
+    lazy val nextDownTheStreet  = intersections.filter(x => eastBlockLengths(x.id) > 0).map(x => x -> Intersection(x.id + 1)).toMap
+    lazy val nextAlongTheAvenue = intersections.filter(x => southBlockLengths(x.id) > 0).map(x => x -> Intersection(x.id + width)).toMap
+
+    // Looked up in the block length arrays so that changed block lengths are seen
+    object blockLengths extends (Block => Int) {
+      def apply(block: Block) = block match {
+        case Block(x, y) if y.id == x.id + 1 && eastBlockLengths(x.id) > 0      => eastBlockLengths(x.id)
+        case Block(x, y) if y.id == x.id + width && southBlockLengths(x.id) > 0 => southBlockLengths(x.id)
+        case _                                                                  => throw new NoSuchElementException(s"No block $block in city")
+      }
+    }
+
+    // Bumped on every change so that results calculated before can tell they are outdated
+    @volatile var version = 0L
+
+    def changeBlockLength(block: Block, length: Int) {
+      changeBlockLengths(Seq(block -> length))
+    }
+
+    // Applies a whole batch as one new version (or none if no length differs). Nothing is changed
+    // if any block is unknown or any length isn't positive.
+    def changeBlockLengths(changes: Seq[(Block, Int)]): BlockLengthChanges = synchronized {
+      changes.foreach { case (block, length) =>
+        require(length > 0, s"Block length has to be positive. Found: $length for $block")
+        blockLengths(block) // fails for unknown blocks
+      }
+      val lengths = changes.toMap.collect {
+        case (block, length) if length != blockLengths(block) => block -> (blockLengths(block), length)
+      }
+      val fromVersion = version
+      if (lengths.nonEmpty) {
+        lengths.foreach { case (block, (_, length)) => setBlockLength(block, length) }
+        version += 1
+      }
+      BlockLengthChanges(fromVersion, version, lengths)
+    }
+
+    private def setBlockLength(block: Block, length: Int) {
+      val x = block.x.id
+      if (block.y.id == x + 1 && eastBlockLengths(x) > 0) eastBlockLengths(x) = length else southBlockLengths(x) = length
+    }
+
+    def lengthOf(path: List[Intersection]) = path.zip(path.tail).map { case (x, y) => blockLengths(Block(x, y)) }.sum
+  }
+
+  // Old and new length of each block changed by a batch taking the city from `fromVersion` to `toVersion`
+  case class BlockLengthChanges(fromVersion: Long, toVersion: Long, lengths: Map[Block, (Int, Int)]) {
+
+    // Both batches as one, for trees built before this batch
+    def andThen(later: BlockLengthChanges): BlockLengthChanges = {
+      require(later.fromVersion == toVersion, s"Changes from version ${later.fromVersion} don't follow changes to version $toVersion")
+      val merged = later.lengths.foldLeft(lengths) { case (all, (block, (oldLength, newLength))) =>
+        all.updated(block, (all.get(block).fold(oldLength)(_._1), newLength))
+      }
+      BlockLengthChanges(fromVersion, later.toVersion, merged.filter { case (_, (oldLength, newLength)) => oldLength != newLength })
+    }
+  }
+
+  // Finished shortest paths from `origin` to every intersection of the city at `cityVersion`
+  case class ShortestPathTree(origin: Intersection, cityVersion: Long, distances: Array[Int], shortcuts: Array[Int]) {
+    def bytes = 64L + 2 * (16L + 4L * distances.length)
+  }
+
+  // Shortest path trees of a city, see ShortestPathTrees
+  class ShortestPathTreeCache(city: ManhattanGrid, maxTrees: Int, maxBytes: Long) {
+    private val trees       = new java.util.LinkedHashMap[Intersection, ShortestPathTree](16, 0.75f, true)
+    private var bytes       = 0L
+    private var cityVersion = city.version
+
+    def get(origin: Intersection): Option[ShortestPathTree] = synchronized {
+      dropOutdated()
+      Option(trees.get(origin))
+    }
+
+    def put(tree: ShortestPathTree): Unit = synchronized {
+      dropOutdated()
+      if (tree.cityVersion == cityVersion && tree.bytes <= maxBytes) {
+        Option(trees.put(tree.origin, tree)).foreach(replaced => bytes -= replaced.bytes)
+        bytes += tree.bytes
+        val lru = trees.values.iterator
+        while (trees.size > maxTrees || bytes > maxBytes) {
+          bytes -= lru.next.bytes
+          lru.remove()
+        }
+      }
+    }
+
+    def contains(origin: Intersection) = synchronized {
+      dropOutdated()
+      trees.containsKey(origin)
+    }
+    def size = synchronized(trees.size)
+    def usedBytes = synchronized(bytes)
+
+    // Keeps the trees across a batch of changes by repairing each of them (see ShortestPathRepair)
+    // instead of dropping them. Only possible while the cache is still at the version the batch started from.
+    def repair(changes: BlockLengthChanges)(repairTree: ShortestPathTree => ShortestPathTree): Unit = synchronized {
+      if (changes.fromVersion == cityVersion) {
+        val repaired = trees.values.toArray(Array[ShortestPathTree]()).map(repairTree)
+        invalidate()
+        cityVersion = changes.toVersion
+        repaired.foreach { tree =>
+          trees.put(tree.origin, tree)
+          bytes += tree.bytes
+        }
+      }
+    }
+
+    def invalidate(): Unit = synchronized {
+      trees.clear()
+      bytes = 0L
+    }
+
+    private def dropOutdated() {
+      if (city.version != cityVersion) {
+        invalidate()
+        cityVersion = city.version
+      }
+    }
+  }
+}
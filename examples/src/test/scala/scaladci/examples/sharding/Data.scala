@@ -0,0 +1,34 @@
+package scaladci
+package examples.sharding
+import java.net.{InetAddress, InetSocketAddress, StandardSocketOptions}
+import java.nio.channels.SocketChannel
+
+import Wire._
+
+// Data of the sharding contexts. Kept in a separate scope from the contexts so that the
+// @context macro can look up the types of the Role Players.
+
+object Data {
+
+  // Account held by a shard worker
+  case class Account(name: String, var balance: Int) {
+    def increaseBalance(amount: Int) { balance += amount }
+    def decreaseBalance(amount: Int) { balance -= amount }
+  }
+
+  // Connection to a shard worker. One request at a time.
+  class ShardConnection(port: Int) {
+    private val channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress, port))
+    channel.setOption[java.lang.Boolean](StandardSocketOptions.TCP_NODELAY, true)
+
+    def request(request: Request): Response = synchronized {
+      writeFully(channel, encode(request))
+      decodeResponse(readFrame(channel))
+    }
+
+    def close() = channel.close()
+  }
+
+  // Account of a shard worker, as seen by the coordinator
+  case class RemoteAccount(name: String, shard: ShardConnection)
+}
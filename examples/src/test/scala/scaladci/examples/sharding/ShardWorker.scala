@@ -0,0 +1,190 @@
+package scaladci
+package examples.sharding
+import java.net.{InetAddress, InetSocketAddress, StandardSocketOptions}
+import java.nio.ByteBuffer
+import java.nio.channels.{SelectionKey, Selector, ServerSocketChannel, SocketChannel}
+import scala.collection.mutable
+
+import Data._
+import Wire._
+
+/*
+Shard worker process
+
+Each worker is a separate JVM holding the accounts of one shard. It listens on a local port
+(printed as "PORT <port>" on its first line of output) and answers the requests of the
+coordinator (see ShardedBank) one at a time:
+
+  - Transfers between two accounts of the shard run the MoneyTransfer context right here.
+
+  - Cross-shard transfers are split into a TransferPart per shard that is prepared first and then
+    committed or aborted. A prepared withdrawal holds the amount, so that the account can't be
+    overdrawn by other transfers before the coordinator has heard from all shards.
+
+The worker exits when the coordinator shuts it down or disconnects. So that no worker is left
+behind, it also exits when the coordinator process dies (its standard input, piped from the
+coordinator, is closed) or hasn't connected within `acceptTimeoutMillis`.
+*/
+
+object ShardWorker {
+
+  // Contexts #################################################################
+
+  @context
+  class MoneyTransfer(source: Account, destination: Account, amount: Int) {
+
+    def transfer(): Boolean = source.canAfford && source.withdraw()
+
+    role source {
+      def canAfford = source.balance >= amount
+
+      def withdraw() = {
+        source.decreaseBalance(amount)
+        destination.deposit()
+        true
+      }
+    }
+
+    role destination {
+      def deposit() {
+        destination.increaseBalance(amount)
+      }
+    }
+  }
+
+  // The part of a cross-shard transfer touching an account of this shard.
+  // Withdrawals have a negative amount and deposits a positive amount.
+  @context
+  class TransferPart(account: Account, amount: Int) {
+
+    def prepare(): Boolean = account.hold()
+    def commit() { account.settle() }
+    def abort() { account.release() }
+
+    role account {
+      def hold() = {
+        val withdrawal = -amount
+        if (withdrawal > account.balance) false
+        else {
+          if (withdrawal > 0) account.decreaseBalance(withdrawal)
+          true
+        }
+      }
+
+      def settle() {
+        if (amount > 0) account.increaseBalance(amount)
+      }
+
+      def release() {
+        if (amount < 0) account.increaseBalance(-amount)
+      }
+    }
+  }
+
+
+  // Shard ####################################################################
+
+  class Shard {
+    private val accounts = mutable.HashMap[String, Account]()
+    private val prepared = mutable.LongMap[TransferPart]()
+
+    def handle(request: Request): Response = request match {
+      case Open(name, balance) =>
+        if (accounts.contains(name)) Response(ok = false)
+        else {
+          accounts(name) = Account(name, balance)
+          Response(ok = true)
+        }
+
+      case Balance(name) =>
+        accounts.get(name).fold(Response(ok = false))(account => Response(ok = true, account.balance))
+
+      case Transfer(source, destination, amount) => (accounts.get(source), accounts.get(destination)) match {
+        case (Some(from), Some(to)) => Response(new MoneyTransfer(from, to, amount).transfer())
+        case _                      => Response(ok = false)
+      }
+
+      case Prepare(txId, name, amount) => accounts.get(name) match {
+        case Some(account) if !prepared.contains(txId) =>
+          val part = new TransferPart(account, amount)
+          val ok = part.prepare()
+          if (ok) prepared(txId) = part
+          Response(ok)
+        case _                                         => Response(ok = false)
+      }
+
+      // Aborting a transaction that was never prepared here is fine
+      case Commit(txId) => Response(prepared.remove(txId).map(_.commit()).isDefined)
+      case Abort(txId)  => prepared.remove(txId).foreach(_.abort()); Response(ok = true)
+      case Shutdown     => Response(ok = true)
+    }
+  }
+
+
+  // Process ##################################################################
+
+  val acceptTimeoutMillis = 30000L
+
+  def main(args: Array[String]) {
+    val parentWatch = new Thread(new Runnable {
+      def run() {
+        while (System.in.read() >= 0) {}
+        sys.exit(1)
+      }
+    })
+    parentWatch.setDaemon(true)
+    parentWatch.start()
+
+    val server = ServerSocketChannel.open()
+    server.socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress, 0))
+    server.configureBlocking(false)
+    val selector = Selector.open()
+    server.register(selector, SelectionKey.OP_ACCEPT)
+
+    println("PORT " + server.socket.getLocalPort)
+    System.out.flush()
+
+    val shard = new Shard
+    var connections = 0
+    var running = true
+    while (running) {
+      if (selector.select(acceptTimeoutMillis) == 0 && connections == 0) running = false
+      val keys = selector.selectedKeys.iterator
+      while (keys.hasNext) {
+        val key = keys.next()
+        keys.remove()
+        if (key.isAcceptable) {
+          val client = server.accept()
+          if (client != null) {
+            client.configureBlocking(false)
+            client.setOption[java.lang.Boolean](StandardSocketOptions.TCP_NODELAY, true)
+            client.register(selector, SelectionKey.OP_READ, ByteBuffer.allocate(64 * 1024))
+            connections += 1
+          }
+        } else if (key.isReadable) {
+          val client = key.channel.asInstanceOf[SocketChannel]
+          val buffer = key.attachment.asInstanceOf[ByteBuffer]
+          if (client.read(buffer) < 0) {
+            key.cancel()
+            client.close()
+            connections -= 1
+            running = connections > 0
+          } else {
+            buffer.flip()
+            var frame = nextFrame(buffer)
+            while (frame.isDefined) {
+              val request = decodeRequest(frame.get)
+              // The coordinator waits for each response, so there is always room to write it
+              writeFully(client, encode(shard.handle(request)))
+              if (request == Shutdown) running = false
+              frame = nextFrame(buffer)
+            }
+            buffer.compact()
+          }
+        }
+      }
+    }
+    selector.close()
+    server.close()
+  }
+}
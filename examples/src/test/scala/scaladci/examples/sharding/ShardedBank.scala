@@ -0,0 +1,167 @@
+package scaladci
+package examples.sharding
+import java.io.{BufferedReader, File, InputStreamReader}
+import java.net.URLClassLoader
+import java.nio.charset.StandardCharsets.UTF_8
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import scala.collection.mutable
+import scala.util.Try
+
+import Data._
+import Wire._
+
+/*
+Sharded money transfers
+
+The ShardedBank coordinator partitions the accounts by name over a number of ShardWorker
+processes on this machine and talks to them over local sockets with the binary Wire format.
+
+When both Role Players of a money transfer live in the same shard, the whole MoneyTransfer
+context runs in that shard's worker with a single request. Otherwise the CrossShardTransfer
+context runs here in the coordinator with RemoteAccounts playing the source and destination
+Roles and moves the money with a two-phase protocol:
+
+  1.  Ask the source shard to prepare the withdrawal (holding the amount if it can be afforded)
+      and the destination shard to prepare the deposit.
+
+  2.  If both shards agree, commit the transfer in both shards. Otherwise abort it in both.
+
+Workers exit by themselves when the coordinator process goes away (see ShardWorker), but workers that
+crash or hang are not recovered from - this is an example of running contexts
+close to their data, not a distributed database.
+*/
+
+class ShardedBank(shards: Int) {
+  import ShardedBank._
+  require(shards > 0, "Please start at least one shard")
+
+  private val workers      = startWorkers()
+  private val connections  = connectTo(workers)
+  private val transactions = new AtomicLong()
+
+  def shardOf(account: String): Int = Math.floorMod(account.hashCode, shards)
+
+  def open(account: String, balance: Int): Boolean = shard(account).request(Open(account, balance)).ok
+
+  def balance(account: String): Option[Int] = {
+    val response = shard(account).request(Balance(account))
+    if (response.ok) Some(response.value) else None
+  }
+
+  def transfer(source: String, destination: String, amount: Int): Boolean = {
+    require(amount > 0, s"Can only transfer a positive amount (was $amount)")
+    if (shardOf(source) == shardOf(destination))
+      shard(source).request(Transfer(source, destination, amount)).ok
+    else
+      new CrossShardTransfer(remote(source), remote(destination), amount, transactions.incrementAndGet).transfer()
+  }
+
+  // Shuts down every worker, even when some of them fail, and then throws the first failure (if any)
+  def close() {
+    val failures = connections.flatMap { connection =>
+      List(Try(connection.request(Shutdown)), Try(connection.close())).flatMap(_.failed.toOption)
+    }
+    workers.foreach { case (process, _) =>
+      if (!process.waitFor(5, TimeUnit.SECONDS)) process.destroyForcibly()
+    }
+    failures.headOption.foreach { failure =>
+      failures.tail.foreach(failure.addSuppressed)
+      throw failure
+    }
+  }
+
+  private def shard(account: String) = connections(shardOf(account))
+  private def remote(account: String) = RemoteAccount(account, shard(account))
+
+  private def startWorkers(): Vector[(Process, Int)] = {
+    val started = mutable.ArrayBuffer[Process]()
+    try {
+      (1 to shards).map { _ =>
+        val process = startWorker()
+        started += process
+        process -> portOf(process)
+      }.toVector
+    } catch {
+      case e: Throwable =>
+        started.foreach(_.destroyForcibly())
+        throw e
+    }
+  }
+
+  // Workers that can't all be connected to are stopped again
+  private def connectTo(workers: Vector[(Process, Int)]): Vector[ShardConnection] = {
+    val connected = mutable.ArrayBuffer[ShardConnection]()
+    try {
+      workers.map { case (_, port) =>
+        val connection = new ShardConnection(port)
+        connected += connection
+        connection
+      }
+    } catch {
+      case e: Throwable =>
+        connected.foreach(connection => Try(connection.close()))
+        workers.foreach { case (process, _) => process.destroyForcibly() }
+        throw e
+    }
+  }
+
+  private def startWorker(): Process = {
+    val java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath
+    new ProcessBuilder(java, "-cp", workerClasspath, ShardWorker.getClass.getName.stripSuffix("$"))
+      .redirectError(ProcessBuilder.Redirect.INHERIT)
+      .start()
+  }
+
+  private def portOf(process: Process): Int = {
+    val line = new BufferedReader(new InputStreamReader(process.getInputStream, UTF_8)).readLine()
+    if (line == null || !line.startsWith("PORT "))
+      throw new IllegalStateException(s"Shard worker didn't start (printed: $line)")
+    line.stripPrefix("PORT ").toInt
+  }
+}
+
+
+object ShardedBank {
+
+  // Context ##################################################################
+
+  @context
+  class CrossShardTransfer(source: RemoteAccount, destination: RemoteAccount, amount: Int, txId: Long) {
+
+    def transfer(): Boolean = {
+      val prepared = source.prepareWithdrawal() && destination.prepareDeposit()
+      if (prepared) {
+        source.commit()
+        destination.commit()
+      } else {
+        source.abort()
+        destination.abort()
+      }
+      prepared
+    }
+
+    role source {
+      def prepareWithdrawal() = source.shard.request(Prepare(txId, source.name, -amount)).ok
+      def commit() { source.shard.request(Commit(txId)) }
+      def abort() { source.shard.request(Abort(txId)) }
+    }
+
+    role destination {
+      def prepareDeposit() = destination.shard.request(Prepare(txId, destination.name, amount)).ok
+      def commit() { destination.shard.request(Commit(txId)) }
+      def abort() { destination.shard.request(Abort(txId)) }
+    }
+  }
+
+
+  // Tests run inside sbt have their classpath in class loaders rather than in `java.class.path`
+  def workerClasspath: String = {
+    def paths(loader: ClassLoader): List[String] = loader match {
+      case null                   => Nil
+      case loader: URLClassLoader => loader.getURLs.toList.map(url => new File(url.toURI).getPath) ++ paths(loader.getParent)
+      case loader                 => paths(loader.getParent)
+    }
+    (paths(getClass.getClassLoader) :+ System.getProperty("java.class.path")).distinct.mkString(File.pathSeparator)
+  }
+}
@@ -0,0 +1,111 @@
+package scaladci
+package examples.sharding
+import java.nio.ByteBuffer
+import java.nio.channels.SocketChannel
+import java.nio.charset.StandardCharsets.UTF_8
+
+/*
+Binary wire format between the coordinator and the shard workers
+
+Each message is a frame of [length: Int][opcode: Byte][fields...]. Account names are written as
+[length: Byte][UTF-8 bytes], amounts as Int and transaction ids as Long. A response is always
+[length: Int = 5][ok: Byte][value: Int].
+*/
+
+object Wire {
+
+  sealed trait Request
+  case class Open(account: String, balance: Int) extends Request
+  case class Balance(account: String) extends Request
+  case class Transfer(source: String, destination: String, amount: Int) extends Request
+  case class Prepare(txId: Long, account: String, amount: Int) extends Request
+  case class Commit(txId: Long) extends Request
+  case class Abort(txId: Long) extends Request
+  case object Shutdown extends Request
+
+  case class Response(ok: Boolean, value: Int = 0)
+
+  private val (open, balance, transfer, prepare, commit, abort, shutdown) = (1: Byte, 2: Byte, 3: Byte, 4: Byte, 5: Byte, 6: Byte, 7: Byte)
+  private val maxFrame = 1024
+
+  def encode(request: Request): ByteBuffer = frame { buffer =>
+    request match {
+      case Open(account, initial)                => buffer.put(open); putName(buffer, account); buffer.putInt(initial)
+      case Balance(account)                      => buffer.put(balance); putName(buffer, account)
+      case Transfer(source, destination, amount) => buffer.put(transfer); putName(buffer, source); putName(buffer, destination); buffer.putInt(amount)
+      case Prepare(txId, account, amount)        => buffer.put(prepare); buffer.putLong(txId); putName(buffer, account); buffer.putInt(amount)
+      case Commit(txId)                          => buffer.put(commit); buffer.putLong(txId)
+      case Abort(txId)                           => buffer.put(abort); buffer.putLong(txId)
+      case Shutdown                              => buffer.put(shutdown)
+    }
+  }
+
+  def encode(response: Response): ByteBuffer = frame { buffer =>
+    buffer.put(if (response.ok) 1: Byte else 0: Byte)
+    buffer.putInt(response.value)
+  }
+
+  def decodeRequest(frame: ByteBuffer): Request = frame.get match {
+    case `open`     => Open(getName(frame), frame.getInt)
+    case `balance`  => Balance(getName(frame))
+    case `transfer` => Transfer(getName(frame), getName(frame), frame.getInt)
+    case `prepare`  => Prepare(frame.getLong, getName(frame), frame.getInt)
+    case `commit`   => Commit(frame.getLong)
+    case `abort`    => Abort(frame.getLong)
+    case `shutdown` => Shutdown
+    case opcode     => throw new IllegalArgumentException(s"Unknown opcode $opcode")
+  }
+
+  def decodeResponse(frame: ByteBuffer) = Response(frame.get == 1, frame.getInt)
+
+  // Takes the next complete frame (without its length) from the buffer, if any
+  def nextFrame(buffer: ByteBuffer): Option[ByteBuffer] = {
+    if (buffer.remaining < 4 || buffer.remaining < 4 + buffer.getInt(buffer.position)) None
+    else {
+      val length = buffer.getInt
+      val frame = buffer.slice()
+      frame.limit(length)
+      buffer.position(buffer.position + length)
+      Some(frame)
+    }
+  }
+
+  // Blocking read of one frame
+  def readFrame(channel: SocketChannel): ByteBuffer = {
+    val length = readFully(channel, ByteBuffer.allocate(4)).getInt
+    readFully(channel, ByteBuffer.allocate(length))
+  }
+
+  def writeFully(channel: SocketChannel, buffer: ByteBuffer) {
+    while (buffer.hasRemaining) channel.write(buffer)
+  }
+
+  private def readFully(channel: SocketChannel, buffer: ByteBuffer) = {
+    while (buffer.hasRemaining)
+      if (channel.read(buffer) < 0) throw new java.io.EOFException("Shard connection closed")
+    buffer.flip()
+    buffer
+  }
+
+  private def frame(write: ByteBuffer => Unit): ByteBuffer = {
+    val buffer = ByteBuffer.allocate(maxFrame)
+    buffer.putInt(0)
+    write(buffer)
+    buffer.putInt(0, buffer.position - 4)
+    buffer.flip()
+    buffer
+  }
+
+  private def putName(buffer: ByteBuffer, name: String) {
+    val bytes = name.getBytes(UTF_8)
+    require(bytes.length <= 255, s"Account name can be at most 255 bytes long: $name")
+    buffer.put(bytes.length.toByte)
+    buffer.put(bytes)
+  }
+
+  private def getName(buffer: ByteBuffer) = {
+    val bytes = new Array[Byte](buffer.get & 0xff)
+    buffer.get(bytes)
+    new String(bytes, UTF_8)
+  }
+}